@@ -0,0 +1,175 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2001-2007, Beneficent
+Technology, Inc. (The Benetech Initiative).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+
+package org.martus.meta;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/*
+ * Times an operation with warm-up runs before the measured runs, so the 
+ * results are not dominated by class loading and JIT compilation. 
+ * 
+ * Results are printed, and if the martus.speed.output system property 
+ * names a file, each result is also appended to it as one JSON object 
+ * per line, so runs can be compared across releases.
+ */
+class SpeedBenchmark
+{
+	SpeedBenchmark(String benchmarkNameToUse)
+	{
+		benchmarkName = benchmarkNameToUse;
+		warmupRuns = Integer.getInteger(WARMUP_PROPERTY, DEFAULT_WARMUP_RUNS).intValue();
+		measuredRuns = Integer.getInteger(RUNS_PROPERTY, DEFAULT_MEASURED_RUNS).intValue();
+		if(warmupRuns < 0)
+			throw new IllegalArgumentException(WARMUP_PROPERTY + " must not be negative");
+		if(measuredRuns < 1)
+			throw new IllegalArgumentException(RUNS_PROPERTY + " must be at least 1");
+		String outputPath = System.getProperty(OUTPUT_PROPERTY);
+		if(outputPath != null && outputPath.length() > 0)
+			outputFile = new File(outputPath);
+	}
+	
+	static abstract class Task
+	{
+		abstract void run() throws Exception;
+	}
+	
+	void time(String operation, long dataSize, Task task) throws Exception
+	{
+		time(operation, dataSize, 1, task);
+	}
+
+	void time(String operation, long dataSize, int operationsPerRun, Task task) throws Exception
+	{
+		for(int i = 0; i < warmupRuns; ++i)
+			task.run();
+		
+		long totalNanos = 0;
+		long bestNanos = Long.MAX_VALUE;
+		for(int i = 0; i < measuredRuns; ++i)
+		{
+			long startedAt = System.nanoTime();
+			task.run();
+			long elapsed = System.nanoTime() - startedAt;
+			totalNanos += elapsed;
+			bestNanos = Math.min(bestNanos, elapsed);
+		}
+		
+		long operations = (long)measuredRuns * operationsPerRun;
+		long averageNanos = totalNanos / Math.max(1, operations);
+		long bestNanosPerOperation = bestNanos / Math.max(1, operationsPerRun);
+		report(operation, dataSize, operations, averageNanos, bestNanosPerOperation);
+	}
+
+	private void report(String operation, long dataSize, long operations, long averageNanos, long bestNanos) throws IOException
+	{
+		double averageMillis = (double)averageNanos / NANOS_PER_MILLI;
+		double bestMillis = (double)bestNanos / NANOS_PER_MILLI;
+		System.out.println(operation + " " + dataSize + " bytes: " + 
+				"avg " + averageMillis + " ms, best " + bestMillis + " ms" + 
+				" (" + operations + " operations)");
+		
+		if(outputFile == null)
+			return;
+		
+		long bytesPerSecond = 0;
+		if(averageNanos > 0)
+			bytesPerSecond = (long)(dataSize * (NANOS_PER_SECOND / averageNanos));
+		
+		StringBuffer json = new StringBuffer();
+		json.append("{");
+		appendField(json, "timestamp", Long.toString(System.currentTimeMillis()));
+		json.append(",");
+		appendField(json, "javaVersion", quote(System.getProperty("java.version", "")));
+		json.append(",");
+		appendField(json, "benchmark", quote(benchmarkName));
+		json.append(",");
+		appendField(json, "operation", quote(operation));
+		json.append(",");
+		appendField(json, "size", Long.toString(dataSize));
+		json.append(",");
+		appendField(json, "operations", Long.toString(operations));
+		json.append(",");
+		appendField(json, "averageNanos", Long.toString(averageNanos));
+		json.append(",");
+		appendField(json, "bestNanos", Long.toString(bestNanos));
+		json.append(",");
+		appendField(json, "bytesPerSecond", Long.toString(bytesPerSecond));
+		json.append("}");
+		
+		Writer writer = new OutputStreamWriter(new FileOutputStream(outputFile, true), "UTF-8");
+		try
+		{
+			writer.write(json.toString());
+			writer.write("\n");
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	private static void appendField(StringBuffer json, String name, String value)
+	{
+		json.append(quote(name));
+		json.append(":");
+		json.append(value);
+	}
+	
+	private static String quote(String text)
+	{
+		StringBuffer result = new StringBuffer("\"");
+		for(int i = 0; i < text.length(); ++i)
+		{
+			char c = text.charAt(i);
+			if(c == '"' || c == '\\')
+				result.append('\\');
+			if(c < ' ')
+				result.append(' ');
+			else
+				result.append(c);
+		}
+		result.append("\"");
+		return result.toString();
+	}
+	
+	static final String WARMUP_PROPERTY = "martus.speed.warmup";
+	static final String RUNS_PROPERTY = "martus.speed.runs";
+	static final String OUTPUT_PROPERTY = "martus.speed.output";
+	static final int DEFAULT_WARMUP_RUNS = 3;
+	static final int DEFAULT_MEASURED_RUNS = 5;
+	private static final double NANOS_PER_MILLI = 1000.0 * 1000.0;
+	private static final double NANOS_PER_SECOND = 1000.0 * 1000.0 * 1000.0;
+
+	String benchmarkName;
+	int warmupRuns;
+	int measuredRuns;
+	File outputFile;
+}
@@ -30,11 +30,14 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Random;
 import java.util.Vector;
 
 import org.martus.common.MartusUtilities.FileVerificationException;
+import org.martus.common.bulletin.Bulletin;
 import org.martus.common.crypto.MockMartusSecurity;
 import org.martus.common.database.BulletinUploadRecord;
 import org.martus.common.database.ClientFileDatabase;
@@ -46,11 +49,15 @@ import org.martus.common.database.MockServerDatabase;
 import org.martus.common.database.ServerFileDatabase;
 import org.martus.common.database.Database.RecordHiddenException;
 import org.martus.common.database.FileDatabase.MissingAccountMapSignatureException;
+import org.martus.common.fieldspec.StandardFieldSpecs;
+import org.martus.common.packet.FieldDataPacket;
+import org.martus.common.packet.Packet;
 import org.martus.common.packet.UniversalId;
 import org.martus.common.test.UniversalIdForTesting;
 import org.martus.common.utilities.MartusServerUtilities;
 import org.martus.util.TestCaseEnhanced;
 import org.martus.util.UnicodeWriter;
+import org.martus.util.inputstreamwithseek.InputStreamWithSeek;
 
 
 
@@ -308,6 +315,14 @@ public class TestDatabase extends TestCaseEnhanced
 		internalTestGetRecordSize(serverFileDb);
 	}
 
+	public void testRecordSizeIsLogicalSize() throws Exception
+	{
+		TRACE("testRecordSizeIsLogicalSize");
+		internalTestRecordSizeIsLogicalSize(mockDb);
+		internalTestRecordSizeIsLogicalSize(clientFileDb);
+		internalTestRecordSizeIsLogicalSize(serverFileDb);
+	}
+
 	public void testGetmTime() throws Exception
 	{
 		TRACE("testGetmTime");
@@ -332,6 +347,14 @@ public class TestDatabase extends TestCaseEnhanced
 		internalTestLargeRecordInputStream(serverFileDb);
 	}
 
+	public void testLargeRecordInputStreamSeek() throws Exception
+	{
+		TRACE("testLargeRecordInputStreamSeek");
+		internalTestLargeRecordInputStreamSeek(mockDb);
+		internalTestLargeRecordInputStreamSeek(clientFileDb);
+		internalTestLargeRecordInputStreamSeek(serverFileDb);
+	}
+
 	public void testReplaceWriteRecord() throws Exception
 	{
 		TRACE("testReplaceWriteRecord");
@@ -391,6 +414,14 @@ public class TestDatabase extends TestCaseEnhanced
 		internalTestVisitAllRecordsForAccount(serverFileDb);
 	}
 
+	public void testVisitAllRecordsForAccountAfterMutations() throws Exception
+	{
+		TRACE("testVisitAllRecordsForAccountAfterMutations");
+		internalTestVisitAllRecordsForAccountAfterMutations(mockDb);
+		internalTestVisitAllRecordsForAccountAfterMutations(clientFileDb);
+		internalTestVisitAllRecordsForAccountAfterMutations(serverFileDb);
+	}
+
 	public void testVisitAllRecordsWithNull() throws Exception
 	{
 		TRACE("testVisitAllRecordsWithNull");
@@ -496,6 +527,22 @@ public class TestDatabase extends TestCaseEnhanced
 		internalTestImportFiles(serverFileDb);
 	}
 	
+	public void testVerifyAfterRewrite() throws Exception
+	{
+		TRACE("testVerifyAfterRewrite");
+		internalTestVerifyAfterRewrite(mockDb);
+		internalTestVerifyAfterRewrite(clientFileDb);
+		internalTestVerifyAfterRewrite(serverFileDb);
+	}
+	
+	public void testMetadataFollowsMutations() throws Exception
+	{
+		TRACE("testMetadataFollowsMutations");
+		internalTestMetadataFollowsMutations(mockDb);
+		internalTestMetadataFollowsMutations(clientFileDb);
+		internalTestMetadataFollowsMutations(serverFileDb);
+	}
+	
 	/////////////////////////////////////////////////////////////////////
 
 	private void internalTestEmptyDatabase(Database db) throws Exception
@@ -555,6 +602,23 @@ public class TestDatabase extends TestCaseEnhanced
 		}
 	}
 	
+	private void internalTestRecordSizeIsLogicalSize(Database db) throws Exception
+	{
+		db.writeRecord(largeKey, largeString);
+		assertEquals(db.toString()+" compressible size?", largeBytes.length, db.getRecordSize(largeKey));
+		assertEquals(db.toString()+" compressible data?", largeString, db.readRecord(largeKey, security));
+
+		byte[] randomBytes = new byte[largeBytes.length];
+		new Random(12345).nextBytes(randomBytes);
+		db.writeRecord(smallKey, new ByteArrayInputStream(randomBytes));
+		assertEquals(db.toString()+" random size?", randomBytes.length, db.getRecordSize(smallKey));
+		InputStream in = db.openInputStream(smallKey, security);
+		byte[] got = readFully(in, randomBytes.length);
+		assertEquals(db.toString()+" random not at end?", -1, in.read());
+		in.close();
+		assertTrue(db.toString()+" random data?", Arrays.equals(randomBytes, got));
+	}
+	
 	private void internalTestGetmTime(Database db) throws Exception
 	{
 		DatabaseKey sealedKey = DatabaseKey.createSealedKey(UniversalIdForTesting.createFromAccountAndPrefix("myAccount" , "x"));
@@ -612,6 +676,43 @@ public class TestDatabase extends TestCaseEnhanced
 		assertEquals(db.toString()+"bad data", true, Arrays.equals(largeBytes, got));
 	}
 	
+	private void internalTestLargeRecordInputStreamSeek(Database db) throws Exception
+	{
+		db.writeRecord(largeKey, largeString);
+		InputStreamWithSeek in = db.openInputStream(largeKey, security);
+		assertNotNull(db.toString()+"no input stream?", in);
+		
+		byte[] got = readFully(in, largeBytes.length);
+		assertEquals(db.toString()+"bad data", true, Arrays.equals(largeBytes, got));
+		assertEquals(db.toString()+"not at end?", -1, in.read());
+		
+		in.seek(0);
+		got = readFully(in, largeBytes.length);
+		assertEquals(db.toString()+"bad data after seek to start", true, Arrays.equals(largeBytes, got));
+
+		int middle = largeBytes.length / 2;
+		in.seek(middle);
+		got = readFully(in, largeBytes.length - middle);
+		for(int i = 0; i < got.length; ++i)
+			assertEquals(db.toString()+"bad data after seek to middle", largeBytes[middle + i], got[i]);
+		in.close();
+	}
+	
+	private byte[] readFully(InputStream in, int length) throws Exception
+	{
+		byte[] got = new byte[length];
+		int offset = 0;
+		while(offset < length)
+		{
+			int count = in.read(got, offset, length - offset);
+			if(count < 0)
+				break;
+			offset += count;
+		}
+		assertEquals("short read?", length, offset);
+		return got;
+	}
+
 	private void internalTestReplaceWriteRecord(Database db) throws Exception
 	{
 		db.writeRecord(largeKey, largeString);
@@ -771,6 +872,45 @@ public class TestDatabase extends TestCaseEnhanced
 		assertEquals(db.toString()+" wrong for second account?", 1, counter.count);
 	}
 
+	private void internalTestVisitAllRecordsForAccountAfterMutations(Database db) throws Exception
+	{
+		PacketCounter counter = new PacketCounter(db);
+		String accountId = "account for index";
+
+		DatabaseKey writtenKey = DatabaseKey.createSealedKey(UniversalIdForTesting.createFromAccountAndPrefix(accountId, "x"));
+		DatabaseKey importedKey = DatabaseKey.createSealedKey(UniversalIdForTesting.createFromAccountAndPrefix(accountId, "x"));
+		DatabaseKey quarantinedKey = DatabaseKey.createSealedKey(UniversalIdForTesting.createFromAccountAndPrefix(accountId, "x"));
+		db.writeRecord(writtenKey, smallString);
+		db.writeRecord(quarantinedKey, smallString);
+		db.writeRecord(largeKey, largeString);
+
+		File temp = createTempFile();
+		UnicodeWriter writer = new UnicodeWriter(temp);
+		writer.write(smallString);
+		writer.close();
+		HashMap entries = new HashMap();
+		entries.put(importedKey, temp);
+		db.importFiles(entries);
+
+		counter.clear();
+		db.visitAllRecordsForAccount(counter, accountId);
+		assertEquals(db.toString()+" wrong count after import?", 3, counter.count);
+
+		db.moveRecordToQuarantine(quarantinedKey);
+		counter.clear();
+		db.visitAllRecordsForAccount(counter, accountId);
+		assertEquals(db.toString()+" counted quarantined record?", 2, counter.count);
+
+		db.discardRecord(writtenKey);
+		counter.clear();
+		db.visitAllRecordsForAccount(counter, accountId);
+		assertEquals(db.toString()+" counted discarded record?", 1, counter.count);
+
+		counter.clear();
+		db.visitAllRecordsForAccount(counter, largeKey.getAccountId());
+		assertEquals(db.toString()+" other account changed?", 1, counter.count);
+	}
+
 	private void internalTestVisitAllRecordsWithNull(Database db) throws Exception
 	{
 		class PacketNullThrower implements Database.PacketVisitor
@@ -1091,6 +1231,76 @@ public class TestDatabase extends TestCaseEnhanced
 		
 	}
 
+	private void internalTestMetadataFollowsMutations(Database db) throws Exception
+	{
+		assertFalse(db.toString()+" exists before write?", db.doesRecordExist(smallKey));
+		assertEquals(db.toString()+" size before write?", 0, db.getRecordSize(smallKey));
+
+		db.writeRecord(smallKey, smallString);
+		assertTrue(db.toString()+" missing after write?", db.doesRecordExist(smallKey));
+		assertEquals(db.toString()+" size after write?", smallString.length(), db.getRecordSize(smallKey));
+
+		db.writeRecord(smallKey, largeString);
+		assertTrue(db.toString()+" missing after rewrite?", db.doesRecordExist(smallKey));
+		assertEquals(db.toString()+" size after rewrite?", largeBytes.length, db.getRecordSize(smallKey));
+
+		db.discardRecord(smallKey);
+		assertFalse(db.toString()+" exists after discard?", db.doesRecordExist(smallKey));
+		assertEquals(db.toString()+" size after discard?", 0, db.getRecordSize(smallKey));
+
+		db.writeRecord(smallKey, smallString);
+		db.moveRecordToQuarantine(smallKey);
+		assertFalse(db.toString()+" exists after quarantine?", db.doesRecordExist(smallKey));
+		
+		db.writeRecord(largeKey, smallString);
+		db.hide(largeKey.getUniversalId());
+		assertFalse(db.toString()+" exists after hide?", db.doesRecordExist(largeKey));
+	}
+
+	private void internalTestVerifyAfterRewrite(Database db) throws Exception
+	{
+		UniversalId uid = UniversalId.createFromAccountAndLocalId(security.getPublicKeyString(), "F-verify");
+		FieldDataPacket fdp = new FieldDataPacket(uid, StandardFieldSpecs.getDefaultTopSetionFieldSpecs());
+		fdp.set(Bulletin.TAGTITLE, "original title");
+		StringWriter writer = new StringWriter();
+		fdp.writeXmlPlainText(writer, security);
+		String signedXml = writer.toString();
+		DatabaseKey key = DatabaseKey.createSealedKey(uid);
+
+		db.writeRecord(key, signedXml);
+		verifyRecordSignature(db, key);
+		verifyRecordSignature(db, key);
+
+		db.writeRecord(key, signedXml.replaceFirst("original title", "tampered title"));
+		try
+		{
+			verifyRecordSignature(db, key);
+			fail(db.toString()+" verified a rewritten record?");
+		}
+		catch(Packet.SignatureVerificationException ignoreExpectedException)
+		{
+		}
+
+		db.writeRecord(key, signedXml);
+		verifyRecordSignature(db, key);
+		db.discardRecord(key);
+		assertNull(db.toString()+" discarded record still readable?", db.openInputStream(key, security));
+	}
+
+	private void verifyRecordSignature(Database db, DatabaseKey key) throws Exception
+	{
+		InputStreamWithSeek in = db.openInputStream(key, security);
+		assertNotNull(db.toString()+" record not found?", in);
+		try
+		{
+			Packet.verifyPacketSignature(in, null, security);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
 	static String buildLargeString()
 	{
 		String result = "";
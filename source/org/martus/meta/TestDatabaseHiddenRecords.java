@@ -282,6 +282,31 @@ public class TestDatabaseHiddenRecords extends TestCaseEnhanced
 	
 	
 	
+	public void testLargeHiddenSet() throws Exception
+	{
+		verifyLargeHiddenSet(mockDatabase);
+		verifyLargeHiddenSet(fileDatabase);
+	}
+
+	private void verifyLargeHiddenSet(Database db) throws Exception
+	{
+		final int hiddenCount = 1000;
+		UniversalId[] hiddenUids = new UniversalId[hiddenCount];
+		for(int i = 0; i < hiddenUids.length; ++i)
+		{
+			hiddenUids[i] = UniversalIdForTesting.createFromAccountAndPrefix("account " + (i % 10), "H");
+			db.hide(hiddenUids[i]);
+		}
+		UniversalId visibleUid = UniversalIdForTesting.createFromAccountAndPrefix("account 0", "V");
+		UniversalId otherAccountUid = UniversalIdForTesting.createFromAccountAndPrefix("other account", "V");
+		
+		db.deleteAllData();
+		for(int i = 0; i < hiddenUids.length; ++i)
+			assertTrue("not hidden after deleteAllData " + i + "?", db.isHidden(hiddenUids[i]));
+		assertFalse("visible uid hidden?", db.isHidden(visibleUid));
+		assertFalse("other account uid hidden?", db.isHidden(otherAccountUid));
+	}
+
 	// TODO: need to test BulletinZipUtilities.importBulletinPacketsFromZipFileToDatabase
 
 	private void writeAndHideRecord(Database db, DatabaseKey key)
@@ -117,4 +117,48 @@ public class TestScrubFile extends TestCaseEnhanced
 		assertTrue("new Data should match Scrubbed",Arrays.equals(dataIn, scrubbedData));
 	}
 
+	public void testEmptyFile() throws Exception
+	{
+		File emptyFile = createTempFile();
+		ScrubFile.scrub(emptyFile);
+		assertTrue("empty file deleted?", emptyFile.exists());
+		assertEquals("empty file grew?", 0, emptyFile.length());
+		emptyFile.delete();
+	}
+
+	public void testMultiMegabyteFile() throws Exception
+	{
+		File hugeFile = createTempFile();
+		int hugeFileSize = 3*1024*1024+17;
+		byte[] dataOut = new byte[hugeFileSize];
+		Arrays.fill(dataOut, (byte)20);
+
+		FileOutputStream out = new FileOutputStream(hugeFile);
+		out.write(dataOut);
+		out.close();
+
+		ScrubFile.scrub(hugeFile);
+		assertEquals("size changed?", hugeFileSize, hugeFile.length());
+
+		byte[] dataIn = new byte[hugeFileSize];
+		FileInputStream in = new FileInputStream(hugeFile);
+		int offset = 0;
+		while(offset < dataIn.length)
+		{
+			int got = in.read(dataIn, offset, dataIn.length - offset);
+			if(got < 0)
+				break;
+			offset += got;
+		}
+		in.close();
+		assertEquals("short read?", hugeFileSize, offset);
+
+		for(int i = 0; i < dataIn.length; ++i)
+		{
+			if(dataIn[i] != 0x55)
+				fail("not scrubbed at offset " + i);
+		}
+		hugeFile.delete();
+	}
+
 }
@@ -36,21 +36,25 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.HashMap;
+import java.util.Vector;
 
 import junit.framework.TestSuite;
 
+import org.martus.common.bulletin.Bulletin;
 import org.martus.common.crypto.MartusCrypto;
 import org.martus.common.crypto.MartusSecurity;
 import org.martus.common.crypto.SessionKey;
 import org.martus.common.database.ClientFileDatabase;
 import org.martus.common.database.Database;
 import org.martus.common.database.DatabaseKey;
+import org.martus.common.database.ServerFileDatabase;
 import org.martus.common.fieldspec.StandardFieldSpecs;
 import org.martus.common.packet.AttachmentPacket;
 import org.martus.common.packet.FieldDataPacket;
 import org.martus.common.packet.Packet;
 import org.martus.common.packet.UniversalId;
-import org.martus.util.Stopwatch;
+import org.martus.util.ScrubFile;
 import org.martus.util.StreamableBase64;
 import org.martus.util.TestCaseEnhanced;
 import org.martus.util.UnicodeReader;
@@ -67,9 +71,22 @@ public class TestSpeed extends TestCaseEnhanced
         super(name);
     }
 
-	public static void main (String[] args) 
+	public static void main (String[] args) throws Exception
 	{
-		runTests();
+		if(args.length > 0 && args[0].equalsIgnoreCase("NEWKEYPAIR"))
+			printNewKeyPair();
+		else
+			runTests();
+	}
+	
+	// Prints a replacement for the stored keyPair constant
+	static void printNewKeyPair() throws Exception
+	{
+		MartusSecurity newSecurity = new MartusSecurity();
+		newSecurity.createKeyPair();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		newSecurity.writeKeyPair(out, password);
+		System.out.println(StreamableBase64.encode(out.toByteArray()));
 	}
 
 	public static void runTests () 
@@ -77,108 +94,189 @@ public class TestSpeed extends TestCaseEnhanced
 		junit.textui.TestRunner.run (new TestSuite(TestSpeed.class));
 	}
 	
-	public void print(String task, long time)
-	{
-		float timeInSeconds = (float)time / 1000;
-		System.out.println(task + ": " + timeInSeconds + " sec");
-	}
-	
 	public void setUp() throws Exception
 	{
 		super.setUp();
+		benchmark = new SpeedBenchmark(getName());
 		if(security == null)
 		{
 			security = new MartusSecurity();
-
-
-			boolean createNewKeyPair = false;
-			
-			if(createNewKeyPair)
-			{
-				Stopwatch t = new Stopwatch();
-				security.createKeyPair();
-				print("Create key pair", t.stop());
-				
-				ByteArrayOutputStream out = new ByteArrayOutputStream();
-				security.writeKeyPair(out, password);
-				System.out.println(StreamableBase64.encode(out.toByteArray()));
-			}
-			else
-			{
-				InputStream in = new ByteArrayInputStream(StreamableBase64.decode(keyPair));
-				security.readKeyPair(in, password);
-			}
+			InputStream in = new ByteArrayInputStream(StreamableBase64.decode(keyPair));
+			security.readKeyPair(in, password);
 		}
 		
 	}
 	
+	public void testCreateKeyPair() throws Exception
+	{
+		// Slow enough that setUp loads a stored key pair instead
+		final Vector unusedSecurities = new Vector();
+		for(int i = 0; i < benchmark.warmupRuns + benchmark.measuredRuns; ++i)
+			unusedSecurities.add(new MartusSecurity());
+		
+		benchmark.time("Create key pair", 0, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				((MartusSecurity)unusedSecurities.remove(0)).createKeyPair();
+			}
+		});
+	}
+	
 	public void testDigests() throws Exception
 	{
-		timeDigest(1);
-		timeDigest(1);
-		timeDigest(2 * 1024);
-		timeDigest(100 * 1024);
-		timeDigest(5 * 1024 * 1024);
+		for(int i = 0; i < PAYLOAD_SIZES.length; ++i)
+			timeDigest(PAYLOAD_SIZES[i]);
 	}
 	
 	void timeDigest(int dataSize) throws Exception
 	{
-		String data = createRandomString(dataSize);
+		final String data = createRandomString(dataSize);
 		
-		Stopwatch digestTimer = new Stopwatch();
-		MartusCrypto.createDigestString(data);
-		print("Digest " + data.length() + " characters of data", digestTimer.stop());
+		benchmark.time("Digest", data.length(), new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				MartusCrypto.createDigestString(data);
+			}
+		});
 	}
 	
 	
 	public void testSignatures() throws Exception
 	{
-		timeSignatureCreateAndVerify(1);
-		timeSignatureCreateAndVerify(1);
-		timeSignatureCreateAndVerify(2 * 1024);
-		timeSignatureCreateAndVerify(100 * 1024);
-		timeSignatureCreateAndVerify(5 * 1024 * 1024);
+		for(int i = 0; i < PAYLOAD_SIZES.length; ++i)
+			timeSignatureCreateAndVerify(PAYLOAD_SIZES[i]);
 	}
 
 	void timeSignatureCreateAndVerify(int dataSize) throws Exception
 	{
-		byte[] data = createRandomBytes(dataSize);
+		final byte[] data = createRandomBytes(dataSize);
+		final byte[] sig = security.createSignatureOfStream(new ByteArrayInputStream(data));
+		
+		benchmark.time("Sign", data.length, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				security.createSignatureOfStream(new ByteArrayInputStream(data));
+			}
+		});
+		
+		benchmark.time("Verify", data.length, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				assertTrue("signature didn't verify?", security.verifySignature(new ByteArrayInputStream(data), sig));
+			}
+		});
+	}
+	
+	public void testVerifyWithAccountId() throws Exception
+	{
+		// Every verification against an account id decodes and parses 
+		// that public key again, which dominates for small packets
+		final String accountId = security.getPublicKeyString();
+		final byte[] data = createRandomBytes(2 * 1024);
+		final byte[] sig = security.createSignatureOfStream(new ByteArrayInputStream(data));
 		
-		InputStream in = new ByteArrayInputStream(data);
-		Stopwatch signer = new Stopwatch();
-		byte[] sig = security.createSignatureOfStream(in);
-		print("Sign   " + data.length + " bytes of data", signer.stop());
+		benchmark.time("Verify with account id", data.length, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				InputStream in = new ByteArrayInputStream(data);
+				assertTrue("signature didn't verify?", security.isValidSignatureOfStream(accountId, in, sig));
+			}
+		});
+	}
+	
+	public void testThreadedSmallPacketCrypto() throws Exception
+	{
+		// Small packets are where fixed per-call crypto overhead dominates
+		timeThreadedSmallPacketCrypto(1);
+		timeThreadedSmallPacketCrypto(2 * 1024);
+	}
+
+	void timeThreadedSmallPacketCrypto(int dataSize) throws Exception
+	{
+		class SmallPacketCryptoThread extends Thread
+		{
+			SmallPacketCryptoThread(byte[] dataToUse)
+			{
+				data = dataToUse;
+			}
+			
+			public void run()
+			{
+				try
+				{
+					for(int i = 0; i < SMALL_PACKETS_PER_THREAD; ++i)
+					{
+						byte[] sig = security.createSignatureOfStream(new ByteArrayInputStream(data));
+						if(!security.verifySignature(new ByteArrayInputStream(data), sig))
+						{
+							result = new Exception("signature didn't verify?");
+							return;
+						}
+						ByteArrayOutputStream cipherOut = new ByteArrayOutputStream();
+						security.encrypt(new ByteArrayInputStreamWithSeek(data), cipherOut);
+						security.decrypt(new ByteArrayInputStreamWithSeek(cipherOut.toByteArray()), new ByteArrayOutputStream());
+					}
+				}
+				catch(Exception e)
+				{
+					result = e;
+				}
+			}
+			
+			byte[] data;
+			Exception result;
+		}
 		
-		security.verifySignature(in, sig);
-		print("Verify " + data.length + " bytes of data", signer.stop());
+		final byte[] data = createRandomBytes(dataSize);
+		int packets = SMALL_PACKET_THREADS * SMALL_PACKETS_PER_THREAD;
+		benchmark.time("Threaded small packet crypto " + SMALL_PACKET_THREADS + " threads", data.length, packets, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				SmallPacketCryptoThread[] threads = new SmallPacketCryptoThread[SMALL_PACKET_THREADS];
+				for(int i = 0; i < threads.length; ++i)
+				{
+					threads[i] = new SmallPacketCryptoThread(data);
+					threads[i].start();
+				}
+				for(int i = 0; i < threads.length; ++i)
+				{
+					threads[i].join();
+					if(threads[i].result != null)
+						throw threads[i].result;
+				}
+			}
+		});
 	}
 	
 	public void testEncryptDecrypt() throws Exception
 	{
-		timeEncryptDecrypt(1);
-		timeEncryptDecrypt(1);
-		timeEncryptDecrypt(2 * 1024);
-		timeEncryptDecrypt(100 * 1024);
-		timeEncryptDecrypt(5 * 1024 * 1024);
+		for(int i = 0; i < PAYLOAD_SIZES.length; ++i)
+			timeEncryptDecrypt(PAYLOAD_SIZES[i]);
 	}
 
 	void timeEncryptDecrypt(int longDataSize) throws Exception
 	{
-		String longData = createRandomString(longDataSize);
+		final String longData = createRandomString(longDataSize);
 		
-		InputStream plainIn = new StringInputStreamWithSeek(longData);
-		ByteArrayOutputStream cipherOut = new ByteArrayOutputStream();
-		
-		Stopwatch t = new Stopwatch();
-		security.encrypt(plainIn, cipherOut);
-		print("Encrypt " + longDataSize + " bytes of data", t.stop());
+		benchmark.time("Encrypt", longDataSize, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				InputStream plainIn = new StringInputStreamWithSeek(longData);
+				security.encrypt(plainIn, new ByteArrayOutputStream());
+			}
+		});
 		
-		InputStreamWithSeek cipherIn = new ByteArrayInputStreamWithSeek(cipherOut.toByteArray());
-		OutputStream plainOut = new ByteArrayOutputStream();
+		ByteArrayOutputStream cipherOut = new ByteArrayOutputStream();
+		security.encrypt(new StringInputStreamWithSeek(longData), cipherOut);
+		final byte[] cipherBytes = cipherOut.toByteArray();
 		
-		Stopwatch decryptTimer = new Stopwatch();
-		security.decrypt(cipherIn, plainOut);
-		print("Decrypt " + longDataSize + " bytes of data", decryptTimer.stop());
+		benchmark.time("Decrypt", longDataSize, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				InputStreamWithSeek cipherIn = new ByteArrayInputStreamWithSeek(cipherBytes);
+				security.decrypt(cipherIn, new ByteArrayOutputStream());
+			}
+		});
 	}
 
 	String createRandomString(int longDataSize) 
@@ -191,15 +289,28 @@ public class TestSpeed extends TestCaseEnhanced
 	
 	public void testBase64() throws Exception
 	{
-		byte[] data = createRandomBytes(100 * 1024);
+		for(int i = 0; i < PAYLOAD_SIZES.length; ++i)
+			timeBase64(PAYLOAD_SIZES[i]);
+	}
+
+	void timeBase64(int dataSize) throws Exception
+	{
+		final byte[] data = createRandomBytes(dataSize);
+		final String encoded = StreamableBase64.encode(data);
 
-		Stopwatch encoder = new Stopwatch();
-		String encoded = StreamableBase64.encode(data);
-		print("Base64 encode " + data.length + " bytes of data", encoder.stop());
+		benchmark.time("Base64 encode", data.length, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				StreamableBase64.encode(data);
+			}
+		});
 		
-		Stopwatch decoder = new Stopwatch();
-		StreamableBase64.decode(encoded);
-		print("Base64 decode " + data.length + " bytes of data", decoder.stop());
+		benchmark.time("Base64 decode", data.length, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				StreamableBase64.decode(encoded);
+			}
+		});
 	}
 
 	byte[] createRandomBytes(int dataSize) 
@@ -213,13 +324,16 @@ public class TestSpeed extends TestCaseEnhanced
 	public void testGetBytes() throws Exception
 	{
 		byte[] data = createRandomBytes(100);
-		String base64 = StreamableBase64.encode(data);
+		final String base64 = StreamableBase64.encode(data);
 		
 		final int count = 100000;
-		Stopwatch getBytesTimer = new Stopwatch();
-		for(int i = 0; i < count; ++i)
-			base64.getBytes("UTF-8");
-		print("getBytes UTF-8 " + count + " iterations of " + data.length + " bytes of data", getBytesTimer.stop());
+		benchmark.time("getBytes UTF-8", base64.length(), count, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				for(int i = 0; i < count; ++i)
+					base64.getBytes("UTF-8");
+			}
+		});
 	}
 	
 	public void testReadLine() throws Exception
@@ -233,59 +347,250 @@ public class TestSpeed extends TestCaseEnhanced
 	{
 		// This test may not be valid, because the packet verifier 
 		// uses db.openInputStream instead of creating a UnicodeReader
-		File bigFile = createRandomTextFile(fileLength);
-		UnicodeReader reader = new UnicodeReader(bigFile);
-		
-		Stopwatch readerTimer = new Stopwatch();
-		while(reader.readLine() != null)
-			;
-		print("reader " + bigFile.length() + " bytes of data", readerTimer.stop());
-		reader.close();
+		final File bigFile = createRandomTextFile(fileLength);
+		
+		benchmark.time("UnicodeReader readLine", bigFile.length(), new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				UnicodeReader reader = new UnicodeReader(bigFile);
+				while(reader.readLine() != null)
+					;
+				reader.close();
+			}
+		});
 		bigFile.delete();
 	}
 	
 	public void testXmlPlain() throws Exception
 	{
-		UniversalId uid = UniversalId.createFromAccountAndLocalId(security.getPublicKeyString(), "localId");
-		FieldDataPacket fdp = new FieldDataPacket(uid, StandardFieldSpecs.getDefaultTopSetionFieldSpecs());
-		
-		Writer writerPlain = new StringWriter();
+		for(int i = 0; i < FIELD_SIZES.length; ++i)
+			timeXml(FIELD_SIZES[i], false);
+	}
+	
+	public void testXmlEncrypted() throws Exception
+	{
+		for(int i = 0; i < FIELD_SIZES.length; ++i)
+			timeXml(FIELD_SIZES[i], true);
+	}
+	
+	void timeXml(int fieldLength, final boolean encrypted) throws Exception
+	{
+		final UniversalId uid = UniversalId.createFromAccountAndLocalId(security.getPublicKeyString(), "localId");
+		final FieldDataPacket fdp = new FieldDataPacket(uid, StandardFieldSpecs.getDefaultTopSetionFieldSpecs());
+		fdp.set(Bulletin.TAGTITLE, createRandomString(fieldLength));
+		String kind = "plaintext";
+		if(encrypted)
+			kind = "encrypted";
 		
-		Stopwatch writePlainTimer = new Stopwatch();
-		fdp.writeXmlPlainText(writerPlain, security);
-		print("Write    plaintext fdp", writePlainTimer.stop());
+		benchmark.time("Write " + kind + " fdp", fieldLength, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				writeFieldDataPacket(fdp, encrypted);
+			}
+		});
+
+		final String xml = writeFieldDataPacket(fdp, encrypted);
+		benchmark.time("Validate " + kind + " fdp", fieldLength, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				InputStreamWithSeek in = new StringInputStreamWithSeek(xml);
+				FieldDataPacket.validateXml(in, uid.getAccountId(), uid.getLocalId(), null, security);
+			}
+		});
 
-		InputStreamWithSeek in1 = new StringInputStreamWithSeek(writerPlain.toString());
-		Stopwatch validatePlainTimer = new Stopwatch();
-		FieldDataPacket.validateXml(in1, uid.getAccountId(), uid.getLocalId(), null, security);
-		print("Validate plaintext fdp", validatePlainTimer.stop());
+		benchmark.time("Load " + kind + " fdp", fieldLength, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				InputStreamWithSeek in = new StringInputStreamWithSeek(xml);
+				fdp.loadFromXml(in, security);
+			}
+		});
+	}
 
-		InputStreamWithSeek in2 = new StringInputStreamWithSeek(writerPlain.toString());
-		Stopwatch loadPlainTimer = new Stopwatch();
-		fdp.loadFromXml(in2, security);
-		print("Load     plaintext fdp", loadPlainTimer.stop());
+	String writeFieldDataPacket(FieldDataPacket fdp, boolean encrypted) throws Exception
+	{
+		Writer writer = new StringWriter();
+		if(encrypted)
+			fdp.writeXmlEncrypted(writer, security);
+		else
+			fdp.writeXmlPlainText(writer, security);
+		return writer.toString();
 	}
 	
-	public void testXmlEncrypted() throws Exception
+	public void testDatabaseMetadata() throws Exception
 	{
-		UniversalId uid = UniversalId.createFromAccountAndLocalId(security.getPublicKeyString(), "localId");
-		FieldDataPacket fdp = new FieldDataPacket(uid, StandardFieldSpecs.getDefaultTopSetionFieldSpecs());
+		File dir = createTempFile();
+		dir.delete();
+		dir.mkdirs();
+		final Database db = new ClientFileDatabase(dir, security);
+		db.initialize();
+
+		UniversalId uid = UniversalId.createFromAccountAndLocalId(security.getPublicKeyString(), "metadata");
+		final DatabaseKey key = DatabaseKey.createSealedKey(uid);
+		db.writeRecord(key, createRandomString(2 * 1024));
+		
+		final int count = 10000;
+		benchmark.time("doesRecordExist", 0, count, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				for(int i = 0; i < count; ++i)
+					db.doesRecordExist(key);
+			}
+		});
+		
+		benchmark.time("getRecordSize", 0, count, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				for(int i = 0; i < count; ++i)
+					db.getRecordSize(key);
+			}
+		});
 		
-		Writer writerEncrypted = new StringWriter();
+		db.deleteAllData();
+		dir.delete();
+		assertFalse("cleanup error (" + dir.getPath() + ")?", dir.exists());
+	}
+	
+	public void testVisitRecords() throws Exception
+	{
+		File dir = createTempFile();
+		dir.delete();
+		dir.mkdirs();
+		final Database db = new ServerFileDatabase(dir, security);
+		db.initialize();
 		
-		Stopwatch writeTimer = new Stopwatch();
-		fdp.writeXmlEncrypted(writerEncrypted, security);
-		print("Write    encrypted fdp", writeTimer.stop());
+		final int accountCount = 20;
+		final int recordsPerAccount = 50;
+		String data = createRandomString(100);
+		for(int account = 0; account < accountCount; ++account)
+		{
+			for(int record = 0; record < recordsPerAccount; ++record)
+			{
+				UniversalId uid = UniversalId.createFromAccountAndLocalId("account" + account, "record" + record);
+				db.writeRecord(DatabaseKey.createSealedKey(uid), data);
+			}
+		}
 		
-		InputStreamWithSeek in1 = new StringInputStreamWithSeek(writerEncrypted.toString());
-		Stopwatch validateTimer = new Stopwatch();
-		FieldDataPacket.validateXml(in1, uid.getAccountId(), uid.getLocalId(), null, security);
-		print("Validate encrypted fdp", validateTimer.stop());
+		class Counter implements Database.PacketVisitor
+		{
+			public void visit(DatabaseKey key)
+			{
+				++count;
+			}
+			
+			int count;
+		}
 
-		InputStreamWithSeek in2 = new StringInputStreamWithSeek(writerEncrypted.toString());
-		Stopwatch loadTimer = new Stopwatch();
-		fdp.loadFromXml(in2, security);
-		print("Load     encrypted fdp", loadTimer.stop());
+		benchmark.time("visitAllRecords " + accountCount * recordsPerAccount + " records", 0, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				Counter counter = new Counter();
+				db.visitAllRecords(counter);
+				assertEquals("wrong count?", accountCount * recordsPerAccount, counter.count);
+			}
+		});
+		
+		final String accountId = "account0";
+		benchmark.time("visitAllRecordsForAccount " + recordsPerAccount + " records", 0, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				Counter counter = new Counter();
+				db.visitAllRecordsForAccount(counter, accountId);
+				assertEquals("wrong count?", recordsPerAccount, counter.count);
+			}
+		});
+		
+		db.deleteAllData();
+		dir.delete();
+		assertFalse("cleanup error (" + dir.getPath() + ")?", dir.exists());
+	}
+	
+	public void testInitializeWithManyAccounts() throws Exception
+	{
+		// Startup loads acctmap.txt and verifies its signature in full
+		final File dir = createTempFile();
+		dir.delete();
+		dir.mkdirs();
+		Database db = new ServerFileDatabase(dir, security);
+		db.initialize();
+		
+		final int accountCount = 500;
+		for(int account = 0; account < accountCount; ++account)
+		{
+			UniversalId uid = UniversalId.createFromAccountAndLocalId("account" + account, "record");
+			db.writeRecord(DatabaseKey.createSealedKey(uid), "data");
+		}
+		
+		benchmark.time("Initialize server db with " + accountCount + " accounts", 0, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				new ServerFileDatabase(dir, security).initialize();
+			}
+		});
+		
+		db.deleteAllData();
+		dir.delete();
+		assertFalse("cleanup error (" + dir.getPath() + ")?", dir.exists());
+	}
+	
+	public void testSmallRecordWrites() throws Exception
+	{
+		File dir = createTempFile();
+		dir.delete();
+		dir.mkdirs();
+		final Database db = new ServerFileDatabase(dir, security);
+		db.initialize();
+		
+		final int count = 100;
+		final String data = createRandomString(512);
+		UniversalId uid = UniversalId.createFromAccountAndLocalId(security.getPublicKeyString(), "small");
+		final DatabaseKey key = DatabaseKey.createSealedKey(uid);
+		benchmark.time("writeRecord", data.length(), count, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				for(int i = 0; i < count; ++i)
+					db.writeRecord(key, data);
+			}
+		});
+		
+		db.deleteAllData();
+		dir.delete();
+		assertFalse("cleanup error (" + dir.getPath() + ")?", dir.exists());
+	}
+	
+	public void testImportFiles() throws Exception
+	{
+		File dir = createTempFile();
+		dir.delete();
+		dir.mkdirs();
+		final Database db = new ServerFileDatabase(dir, security);
+		db.initialize();
+		
+		final int filesPerImport = 100;
+		final int fileLength = 2 * 1024;
+		String accountId = security.getPublicKeyString();
+		final Vector batches = new Vector();
+		for(int batch = 0; batch < benchmark.warmupRuns + benchmark.measuredRuns; ++batch)
+		{
+			HashMap entries = new HashMap();
+			for(int i = 0; i < filesPerImport; ++i)
+			{
+				UniversalId uid = UniversalId.createFromAccountAndLocalId(accountId, "import" + batch + "-" + i);
+				entries.put(DatabaseKey.createSealedKey(uid), createRandomFile(fileLength));
+			}
+			batches.add(entries);
+		}
+		
+		benchmark.time("importFiles " + filesPerImport + " files", (long)filesPerImport * fileLength, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				db.importFiles((HashMap)batches.remove(0));
+			}
+		});
+		
+		db.deleteAllData();
+		dir.delete();
+		assertFalse("cleanup error (" + dir.getPath() + ")?", dir.exists());
 	}
 	
 	public void testAttachments() throws Exception
@@ -305,39 +610,73 @@ public class TestSpeed extends TestCaseEnhanced
 		assertFalse("cleanup error (" + dir.getPath() + ")?", dir.exists());
 	}
 	
-	void timeAttachments(Database db, int fileLength) throws Exception
+	void timeAttachments(final Database db, int fileLength) throws Exception
 	{
-		String accountId = security.getPublicKeyString();
-		SessionKey sessionKeyBytes = security.createSessionKey();
+		final String accountId = security.getPublicKeyString();
+		final SessionKey sessionKeyBytes = security.createSessionKey();
 
-		Stopwatch fileCreateTimer = new Stopwatch();
-		File fileToAttach = createRandomFile(fileLength);
-		print("Create " + fileLength + " byte file", fileCreateTimer.stop());
+		final File fileToAttach = createRandomFile(fileLength);
 		
-		AttachmentPacket ap = new AttachmentPacket(accountId, sessionKeyBytes, fileToAttach, security);
-		ap.writeXmlToClientDatabase(db, false, security);
-		print("Write " + fileLength + " byte attachment to db", fileCreateTimer.stop());
+		final Vector writtenUids = new Vector();
+		benchmark.time("Write attachment to db", fileLength, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				AttachmentPacket ap = new AttachmentPacket(accountId, sessionKeyBytes, fileToAttach, security);
+				ap.writeXmlToClientDatabase(db, false, security);
+				writtenUids.add(ap.getUniversalId());
+			}
+		});
 
 		fileToAttach.delete();
 		assertFalse("fileToAttach exists?", fileToAttach.exists());
 
-		DatabaseKey key = DatabaseKey.createLegacyKey(ap.getUniversalId());
-		InputStreamWithSeek xmlIn = db.openInputStream(key, security);
-		
-		Stopwatch verifyTimer = new Stopwatch();
-		Packet.verifyPacketSignature(xmlIn, null, security);
-		print("Verify " + fileLength + " byte attachment", verifyTimer.stop());
+		UniversalId lastUid = (UniversalId)writtenUids.remove(writtenUids.size() - 1);
+		for(int i = 0; i < writtenUids.size(); ++i)
+			db.discardRecord(DatabaseKey.createLegacyKey((UniversalId)writtenUids.get(i)));
+
+		final DatabaseKey key = DatabaseKey.createLegacyKey(lastUid);
+		benchmark.time("Verify attachment", fileLength, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				InputStreamWithSeek xmlIn = db.openInputStream(key, security);
+				Packet.verifyPacketSignature(xmlIn, null, security);
+				xmlIn.close();
+			}
+		});
 		
-		File destFile = createTempFile();
-//		Stopwatch fileExportTimer = new Stopwatch();
-//		AttachmentPacket.exportRawFileFromXml(xmlIn, sessionKeyBytes, security, destFile);
-//		print("Export " + fileLength + " byte attachment", fileExportTimer.stop());
+		final File destFile = createTempFile();
+		benchmark.time("Export attachment", fileLength, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				InputStreamWithSeek xmlIn = db.openInputStream(key, security);
+				AttachmentPacket.exportRawFileFromXml(xmlIn, sessionKeyBytes, security, destFile);
+				xmlIn.close();
+			}
+		});
+		assertEquals("exported wrong length?", fileLength, destFile.length());
 
-		xmlIn.close();
 		destFile.delete();
 		assertFalse("destFile exists?", destFile.exists());
 	}
 	
+	public void testScrub() throws Exception
+	{
+		timeScrub(100 * 1024);
+		timeScrub(5 * 1024 * 1024);
+	}
+
+	void timeScrub(int fileLength) throws Exception
+	{
+		final File file = createRandomFile(fileLength);
+		benchmark.time("Scrub file", fileLength, new SpeedBenchmark.Task() {
+			void run() throws Exception
+			{
+				ScrubFile.scrub(file);
+			}
+		});
+		file.delete();
+	}
+	
 	File createRandomFile(int length) throws Exception
 	{
 		File file = createTempFile();
@@ -364,6 +703,11 @@ public class TestSpeed extends TestCaseEnhanced
 		return file;
 	}
 	
+	static final int[] PAYLOAD_SIZES = {1, 2 * 1024, 100 * 1024, 5 * 1024 * 1024};
+	static final int SMALL_PACKET_THREADS = 50;
+	static final int SMALL_PACKETS_PER_THREAD = 20;
+	static final int[] FIELD_SIZES = {10, 10 * 1024, 1024 * 1024};
+	
 	static final String keyPair = 
 		"AM/t8OvhFCqyQGgBCK5MwibHaFitpRIOqzyktNkHC1UYq7C+ykziCKvy383M" +
 		"GiocsjB+sbqMRZbBboMu3rlRkT/uToOArJNMAjF6bbiOjTsqhAQrQPFxuqF3" +
@@ -423,5 +767,6 @@ public class TestSpeed extends TestCaseEnhanced
 		"v9WPkKQixP7NxafdxT0=";
 	
 	static MartusCrypto security;
+	SpeedBenchmark benchmark;
 	static final char[] password = "password".toCharArray();
 }
@@ -25,6 +25,8 @@ Boston, MA 02111-1307, USA.
 */
 package org.martus.meta;
 
+import java.util.Arrays;
+
 import org.martus.util.StreamableBase64;
 import org.martus.util.TestCaseEnhanced;
 
@@ -56,4 +58,78 @@ public class TestStreamableBase64 extends TestCaseEnhanced
 		byte[] decrypted = StreamableBase64.decode(encrypted);
 		assertEquals("decoded enpty data not equal?", data, new String(decrypted));
 	}
+
+	public void testKnownAnswers() throws Exception
+	{
+		// RFC 4648 test vectors
+		verifyKnownAnswer("".getBytes("UTF-8"), "");
+		verifyKnownAnswer("f".getBytes("UTF-8"), "Zg==");
+		verifyKnownAnswer("fo".getBytes("UTF-8"), "Zm8=");
+		verifyKnownAnswer("foo".getBytes("UTF-8"), "Zm9v");
+		verifyKnownAnswer("foob".getBytes("UTF-8"), "Zm9vYg==");
+		verifyKnownAnswer("fooba".getBytes("UTF-8"), "Zm9vYmE=");
+		verifyKnownAnswer("foobar".getBytes("UTF-8"), "Zm9vYmFy");
+		
+		byte[] highBitBytes = {(byte)0xff, (byte)0xfe, (byte)0xfd, (byte)0x80, 0x00, 0x7f, (byte)0xc3, (byte)0xa9};
+		verifyKnownAnswer(highBitBytes, "//79gAB/w6k=");
+	}
+
+	public void testRoundTripEveryPaddingLength() throws Exception
+	{
+		for(int length = 0; length < 10; ++length)
+		{
+			byte[] data = createBinaryData(length);
+			String encoded = StreamableBase64.encode(data);
+			assertEquals("wrong encoded length for " + length + "?", (length + 2) / 3 * 4, encoded.length());
+			verifyRoundTrip(data);
+		}
+	}
+
+	public void testRoundTripLargeBinary() throws Exception
+	{
+		verifyRoundTrip(createBinaryData(100 * 1024 + 1));
+	}
+
+	public void testLargeKnownAnswer() throws Exception
+	{
+		// 0xfb 0xef 0xbe encodes as "++++", so the whole expected 
+		// encoding is known, and any line wrapping would show up
+		final int groups = 34133;
+		byte[] data = new byte[groups * 3 + 2];
+		StringBuffer expected = new StringBuffer();
+		for(int i = 0; i < groups; ++i)
+		{
+			data[i * 3] = (byte)0xfb;
+			data[i * 3 + 1] = (byte)0xef;
+			data[i * 3 + 2] = (byte)0xbe;
+			expected.append("++++");
+		}
+		data[groups * 3] = (byte)0xfb;
+		data[groups * 3 + 1] = (byte)0xef;
+		expected.append("++8=");
+		assertEquals("not 100 KB plus one?", 100 * 1024 + 1, data.length);
+
+		verifyKnownAnswer(data, expected.toString());
+	}
+
+	private void verifyKnownAnswer(byte[] data, String expected) throws Exception
+	{
+		assertEquals("wrong encoding for " + data.length + " bytes?", expected, StreamableBase64.encode(data));
+		assertTrue("wrong decoding of " + data.length + " bytes?", Arrays.equals(data, StreamableBase64.decode(expected)));
+	}
+
+	private void verifyRoundTrip(byte[] data) throws Exception
+	{
+		String encoded = StreamableBase64.encode(data);
+		byte[] decoded = StreamableBase64.decode(encoded);
+		assertTrue("round trip failed for " + data.length + "?", Arrays.equals(data, decoded));
+	}
+
+	private byte[] createBinaryData(int length)
+	{
+		byte[] data = new byte[length];
+		for(int i = 0; i < data.length; ++i)
+			data[i] = (byte)(i * 7);
+		return data;
+	}
 }
\ No newline at end of file
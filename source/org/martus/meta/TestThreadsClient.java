@@ -25,9 +25,12 @@ Boston, MA 02111-1307, USA.
 */
 package org.martus.meta;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.Arrays;
 import java.util.zip.ZipFile;
 
 import junit.framework.TestSuite;
@@ -38,12 +41,18 @@ import org.martus.client.test.MockBulletinStore;
 import org.martus.common.bulletin.Bulletin;
 import org.martus.common.bulletin.BulletinZipUtilities;
 import org.martus.common.crypto.MartusCrypto;
+import org.martus.common.crypto.MockMartusSecurity;
+import org.martus.common.database.ClientFileDatabase;
+import org.martus.common.database.Database;
 import org.martus.common.database.DatabaseKey;
 import org.martus.common.database.ReadableDatabase;
+import org.martus.common.packet.FieldDataPacket;
 import org.martus.common.packet.Packet;
 import org.martus.common.packet.UniversalId;
+import org.martus.common.test.UniversalIdForTesting;
 import org.martus.swing.Utilities;
 import org.martus.util.TestCaseEnhanced;
+import org.martus.util.inputstreamwithseek.ByteArrayInputStreamWithSeek;
 import org.martus.util.inputstreamwithseek.InputStreamWithSeek;
 import org.martus.util.inputstreamwithseek.StringInputStreamWithSeek;
 
@@ -183,6 +192,57 @@ public class TestThreadsClient extends TestCaseEnhanced
 		doThreadTests(new PacketWriteThreadFactory());
 	}
 	
+	public void testThreadedEncryptedPacketWriting() throws Exception
+	{
+		class EncryptedPacketWriter extends TestingThread
+		{
+			EncryptedPacketWriter(ClientBulletinStore storeToUse, int copiesToDo) throws Exception
+			{
+				copies = copiesToDo;
+				bulletin = storeToUse.createEmptyBulletin();
+				bulletin.set(Bulletin.TAGTITLE, "title");
+				security = storeToUse.getSignatureGenerator();
+			}
+			
+			public void run()
+			{
+				try 
+				{
+					for(int i=0; i < copies; ++i)
+					{
+						FieldDataPacket fdp = bulletin.getFieldDataPacket();
+						Writer writer = new StringWriter();
+						fdp.writeXmlEncrypted(writer, security);
+						InputStreamWithSeek in = new StringInputStreamWithSeek(writer.toString());
+						FieldDataPacket.validateXml(in, fdp.getAccountId(), fdp.getLocalId(), null, security);
+					}
+				} 
+				catch (Exception e) 
+				{
+					result = e;
+				}
+			}
+			
+			Bulletin bulletin;
+			MartusCrypto security;
+			int copies;
+		}
+
+		class EncryptedPacketWriteThreadFactory extends ClientThreadFactory implements ThreadFactory
+		{
+			EncryptedPacketWriteThreadFactory() throws Exception
+			{
+			}
+			
+			public TestingThread createThread(int copies) throws Exception
+			{
+				return new EncryptedPacketWriter(store, copies);
+			}
+		}
+		
+		doThreadTests(new EncryptedPacketWriteThreadFactory());
+	}
+	
 	public void testThreadedExporting() throws Exception
 	{
 		class Exporter extends TestingThread
@@ -237,6 +297,71 @@ public class TestThreadsClient extends TestCaseEnhanced
 		doThreadTests(new ExportThreadFactory());
 	}
 
+	public void testThreadedPacketVerifying() throws Exception
+	{
+		class PacketVerifier extends TestingThread
+		{
+			PacketVerifier(ClientBulletinStore store, Bulletin bulletinToVerify, int copiesToDo) throws Exception
+			{
+				copies = copiesToDo;
+				db = store.getDatabase();
+				security = store.getSignatureVerifier();
+				keys = new DatabaseKey[] {
+					DatabaseKey.createKey(bulletinToVerify.getUniversalId(), bulletinToVerify.getStatus()),
+					DatabaseKey.createKey(bulletinToVerify.getFieldDataPacket().getUniversalId(), bulletinToVerify.getStatus()),
+				};
+			}
+			
+			public void run()
+			{
+				try 
+				{
+					for(int i=0; i < copies; ++i)
+					{
+						for(int k = 0; k < keys.length; ++k)
+						{
+							InputStreamWithSeek in = db.openInputStream(keys[k], security);
+							assertNotNull("packet not found?", in);
+							Packet.verifyPacketSignature(in, null, security);
+							in.close();
+						}
+					}
+				} 
+				catch (Exception e) 
+				{
+					result = e;
+				}
+				catch (Throwable e) 
+				{
+					result = new Exception(e);
+				}
+			}
+			
+			int copies;
+			ReadableDatabase db;
+			MartusCrypto security;
+			DatabaseKey[] keys;
+		}
+
+		class PacketVerifyThreadFactory extends ClientThreadFactory implements ThreadFactory
+		{
+			PacketVerifyThreadFactory() throws Exception
+			{
+				b = store.createEmptyBulletin();
+				store.saveBulletin(b);
+			}
+			
+			public TestingThread createThread(int copies) throws Exception
+			{
+				return new PacketVerifier(store, b, copies);
+			}
+			
+			Bulletin b;
+		}
+		
+		doThreadTests(new PacketVerifyThreadFactory());
+	}
+	
 	public void testThreadedImporting() throws Exception
 	{
 		class Importer extends TestingThread
@@ -300,6 +425,169 @@ public class TestThreadsClient extends TestCaseEnhanced
 		doThreadTests(new ImportThreadFactory());
 	}
 	
+	public void testThreadedSmallPacketCrypto() throws Exception
+	{
+		class SmallPacketCryptoTester extends TestingThread
+		{
+			SmallPacketCryptoTester(ClientBulletinStore storeToUse, int copiesToDo) throws Exception
+			{
+				copies = copiesToDo;
+				security = storeToUse.getSignatureGenerator();
+			}
+			
+			public void run()
+			{
+				try 
+				{
+					for(int i=0; i < copies; ++i)
+					{
+						for(int size = 0; size < SMALL_PACKET_SIZES.length; ++size)
+							signVerifyEncryptDecrypt(createSmallPacket(SMALL_PACKET_SIZES[size]));
+					}
+				} 
+				catch (Exception e) 
+				{
+					result = e;
+				}
+				catch (Throwable e) 
+				{
+					result = new Exception(e);
+				}
+			}
+
+			private void signVerifyEncryptDecrypt(byte[] data) throws Exception
+			{
+				byte[] sig = security.createSignatureOfStream(new ByteArrayInputStream(data));
+				assertTrue("signature didn't verify?", security.verifySignature(new ByteArrayInputStream(data), sig));
+
+				ByteArrayOutputStream cipherOut = new ByteArrayOutputStream();
+				security.encrypt(new ByteArrayInputStreamWithSeek(data), cipherOut);
+				ByteArrayOutputStream plainOut = new ByteArrayOutputStream();
+				security.decrypt(new ByteArrayInputStreamWithSeek(cipherOut.toByteArray()), plainOut);
+				assertTrue("decrypted data wrong?", Arrays.equals(data, plainOut.toByteArray()));
+			}
+			
+			private byte[] createSmallPacket(int size)
+			{
+				byte[] data = new byte[size];
+				for(int i = 0; i < data.length; ++i)
+					data[i] = (byte)i;
+				return data;
+			}
+			
+			MartusCrypto security;
+			int copies;
+		}
+
+		class SmallPacketCryptoThreadFactory extends ClientThreadFactory implements ThreadFactory
+		{
+			SmallPacketCryptoThreadFactory() throws Exception
+			{
+			}
+			
+			public TestingThread createThread(int copies) throws Exception
+			{
+				return new SmallPacketCryptoTester(store, copies);
+			}
+		}
+		
+		doThreadTests(new SmallPacketCryptoThreadFactory());
+	}
+	
+	public void testThreadedRecordReading() throws Exception
+	{
+		class RecordReader extends TestingThread
+		{
+			RecordReader(Database dbToUse, DatabaseKey sharedKeyToUse, MartusCrypto securityToUse, int copiesToDo, int id)
+			{
+				db = dbToUse;
+				sharedKey = sharedKeyToUse;
+				security = securityToUse;
+				copies = copiesToDo;
+				key = DatabaseKey.createSealedKey(UniversalIdForTesting.createFromAccountAndPrefix("reader " + id, "x"));
+			}
+			
+			public void run()
+			{
+				try 
+				{
+					for(int i=0; i < copies; ++i)
+					{
+						String data = key.getLocalId() + " version " + i;
+						db.writeRecord(key, data);
+						for(int read = 0; read < 10; ++read)
+						{
+							assertEquals("stale read?", data, db.readRecord(key, security));
+							assertEquals("shared record wrong?", SHARED_RECORD, db.readRecord(sharedKey, security));
+						}
+						db.discardRecord(key);
+						assertNull("read after discard?", db.readRecord(key, security));
+					}
+				} 
+				catch (Exception e) 
+				{
+					result = e;
+				}
+				catch (Throwable e) 
+				{
+					// failed assertions are Errors, and would otherwise only end this thread
+					result = new Exception(e);
+				}
+			}
+			
+			Database db;
+			DatabaseKey key;
+			DatabaseKey sharedKey;
+			MartusCrypto security;
+			int copies;
+		}
+
+		class RecordReadThreadFactory implements ThreadFactory
+		{
+			RecordReadThreadFactory() throws Exception
+			{
+				security = MockMartusSecurity.createClient();
+				dir = createTempFile();
+				dir.delete();
+				dir.mkdirs();
+				db = new ClientFileDatabase(dir, security);
+				db.initialize();
+				sharedKey = DatabaseKey.createSealedKey(UniversalIdForTesting.createFromAccountAndPrefix("shared", "x"));
+				db.writeRecord(sharedKey, SHARED_RECORD);
+			}
+			
+			public TestingThread createThread(int copies) throws Exception
+			{
+				return new RecordReader(db, sharedKey, security, copies, nextId++);
+			}
+			
+			public void tearDown() throws Exception
+			{
+				db.deleteAllData();
+				dir.delete();
+				assertFalse("cleanup error (" + dir.getPath() + ")?", dir.exists());
+			}
+
+			public int getThreadCount()
+			{
+				return threads;
+			}
+			
+			public int getIterations()
+			{
+				return iterations;
+			}
+			
+			MartusCrypto security;
+			File dir;
+			Database db;
+			DatabaseKey sharedKey;
+			int nextId;
+		}
+		
+		doThreadTests(new RecordReadThreadFactory());
+	}
+	
 	public void testThreadedFolderListActivity() throws Exception
 	{
 		class FolderListTester extends TestingThread
@@ -459,6 +747,9 @@ public class TestThreadsClient extends TestCaseEnhanced
 		ClientBulletinStore store;
 	}
 
+	static final int[] SMALL_PACKET_SIZES = {1, 2 * 1024};
+	static final String SHARED_RECORD = "read by every thread";
+
 	// Under Java 1.4.2_03 Iterations of 20 with a threadCount of 20 causes a hotspot error
 	// Under Java 1.5 with Iterations of 9 with a threadCount of 9 causes the hotspot error
 	// Under Java 1.6 with Iterations of 4 with a threadCount of 4 causes the hotspot error